@@ -0,0 +1,208 @@
+// Local benchmark for the audio segment serving path.
+// Simulates the admin player seeking through many segments concurrently and reports
+// request latency and event-loop lag for the cached async handler vs the old sync one.
+// The server runs in a forked child so the lag figures reflect the handler, not the load generator.
+//
+// Usage: npm run bench:audio -- [segments] [concurrency] [requests]
+import fs from 'fs';
+import os from 'os';
+import path from 'path';
+import http from 'http';
+import { fork, type ChildProcess } from 'child_process';
+import { fileURLToPath } from 'url';
+import { monitorEventLoopDelay } from 'perf_hooks';
+import type { AddressInfo } from 'net';
+import { serveAudioFile } from '../server/audio-files';
+
+const SEGMENTS = parseInt(process.argv[2] || '200', 10);
+const CONCURRENCY = parseInt(process.argv[3] || '64', 10);
+const REQUESTS = parseInt(process.argv[4] || '5000', 10);
+const SEGMENT_BYTES = 512 * 1024;
+const SEEK_BYTES = 64 * 1024;
+
+type HandlerName = 'legacy' | 'cached';
+type Handler = (req: http.IncomingMessage, res: http.ServerResponse, filePath: string) => void | Promise<void>;
+type LagStats = { p50: number; p99: number; max: number };
+
+// Copy of the previous route handler: sync existsSync/statSync on every request, single range only
+const legacyHandler: Handler = (req, res, filePath) => {
+  if (!fs.existsSync(filePath)) {
+    res.writeHead(404, { 'Content-Type': 'application/json' }).end(JSON.stringify({ message: "Audio file not found" }));
+    return;
+  }
+
+  const stat = fs.statSync(filePath);
+  const fileSize = stat.size;
+  const range = req.headers.range;
+  res.setHeader('Cache-Control', 'no-cache');
+  res.setHeader('Accept-Ranges', 'bytes');
+
+  const ext = path.extname(filePath).toLowerCase();
+  const contentType = ext === '.webm' ? 'audio/webm'
+    : ext === '.m4a' || ext === '.mp4' ? 'audio/mp4'
+    : ext === '.ogg' ? 'audio/ogg'
+    : 'audio/*';
+
+  if (range) {
+    const parts = range.replace(/bytes=/, '').split('-');
+    const start = parseInt(parts[0], 10);
+    const end = parts[1] ? parseInt(parts[1], 10) : fileSize - 1;
+    if (isNaN(start) || isNaN(end) || start > end || end >= fileSize) {
+      res.writeHead(416, { 'Content-Range': `bytes */${fileSize}` }).end();
+      return;
+    }
+    const chunkSize = end - start + 1;
+    res.writeHead(206, {
+      'Content-Range': `bytes ${start}-${end}/${fileSize}`,
+      'Accept-Ranges': 'bytes',
+      'Content-Length': chunkSize,
+      'Content-Type': contentType,
+    });
+    fs.createReadStream(filePath, { start, end }).pipe(res);
+  } else {
+    res.writeHead(200, {
+      'Content-Length': fileSize,
+      'Content-Type': contentType,
+    });
+    fs.createReadStream(filePath).pipe(res);
+  }
+};
+
+// Child process: serve files from `dir` and report event-loop lag on request
+async function runServer(handlerName: HandlerName, dir: string) {
+  const handler: Handler = handlerName === 'legacy' ? legacyHandler : serveAudioFile;
+  const server = http.createServer((req, res) => {
+    const filePath = path.join(dir, path.basename(req.url || ''));
+    Promise.resolve(handler(req, res, filePath)).catch(() => res.destroy());
+  });
+  await new Promise<void>((resolve) => server.listen(0, '127.0.0.1', resolve));
+
+  const loop = monitorEventLoopDelay({ resolution: 1 });
+  process.on('message', (msg: string) => {
+    if (msg === 'start') {
+      loop.reset();
+      loop.enable();
+    } else if (msg === 'stats') {
+      loop.disable();
+      const stats: LagStats = { p50: loop.percentile(50) / 1e6, p99: loop.percentile(99) / 1e6, max: loop.max / 1e6 };
+      process.send?.(stats, () => server.close(() => process.exit(0)));
+    }
+  });
+  process.send?.({ port: (server.address() as AddressInfo).port });
+}
+
+function nextMessage<T>(child: ChildProcess): Promise<T> {
+  return new Promise((resolve, reject) => {
+    child.once('message', (msg) => resolve(msg as T));
+    child.once('error', reject);
+  });
+}
+
+function percentile(sorted: number[], p: number): number {
+  if (sorted.length === 0) return 0;
+  const idx = Math.min(sorted.length - 1, Math.ceil((p / 100) * sorted.length) - 1);
+  return sorted[Math.max(idx, 0)];
+}
+
+function createSegments(dir: string): string[] {
+  const names: string[] = [];
+  const chunk = Buffer.alloc(SEGMENT_BYTES, 0x1a);
+  for (let i = 0; i < SEGMENTS; i++) {
+    const name = `2025-01-01-${1700000000000 + i}.webm`;
+    fs.writeFileSync(path.join(dir, name), chunk);
+    names.push(name);
+  }
+  return names;
+}
+
+function request(port: number, agent: http.Agent, name: string, range: string): Promise<number> {
+  return new Promise((resolve, reject) => {
+    const started = process.hrtime.bigint();
+    const req = http.get(
+      { host: '127.0.0.1', port, path: `/${name}`, agent, headers: { Range: range } },
+      (res) => {
+        res.resume();
+        res.on('end', () => resolve(Number(process.hrtime.bigint() - started) / 1e6));
+        res.on('error', reject);
+      },
+    );
+    req.on('error', reject);
+  });
+}
+
+function randomSeek(): string {
+  const start = Math.floor(Math.random() * (SEGMENT_BYTES - SEEK_BYTES));
+  return `bytes=${start}-${start + SEEK_BYTES - 1}`;
+}
+
+// Mostly single seeks, with an occasional multi-range request
+function randomMixedRange(): string {
+  if (Math.random() < 0.1) {
+    const first = Math.floor(Math.random() * (SEGMENT_BYTES - 1024));
+    const second = Math.floor(Math.random() * (SEGMENT_BYTES - 1024));
+    return `bytes=${first}-${first + 1023},${second}-${second + 1023}`;
+  }
+  return randomSeek();
+}
+
+async function run(label: string, handlerName: HandlerName, dir: string, names: string[], nextRange: () => string) {
+  const child = fork(fileURLToPath(import.meta.url), ['--server', handlerName, dir]);
+  const { port } = await nextMessage<{ port: number }>(child);
+  const agent = new http.Agent({ keepAlive: true, maxSockets: CONCURRENCY });
+
+  const latencies: number[] = [];
+  let issued = 0;
+  child.send('start');
+  const started = Date.now();
+
+  const worker = async () => {
+    while (issued < REQUESTS) {
+      issued++;
+      const name = names[Math.floor(Math.random() * names.length)];
+      latencies.push(await request(port, agent, name, nextRange()));
+    }
+  };
+  await Promise.all(Array.from({ length: CONCURRENCY }, worker));
+
+  const elapsed = (Date.now() - started) / 1000;
+  agent.destroy();
+  const statsReply = nextMessage<LagStats>(child);
+  child.send('stats');
+  const lag = await statsReply;
+  await new Promise<void>((resolve) => (child.exitCode !== null ? resolve() : child.once('exit', () => resolve())));
+
+  latencies.sort((a, b) => a - b);
+  console.log(`\n${label}`);
+  console.log(`  requests: ${latencies.length} in ${elapsed.toFixed(2)}s (${(latencies.length / elapsed).toFixed(0)} req/s)`);
+  console.log(
+    `  latency ms: p50=${percentile(latencies, 50).toFixed(2)} p95=${percentile(latencies, 95).toFixed(2)} ` +
+    `p99=${percentile(latencies, 99).toFixed(2)} max=${latencies[latencies.length - 1].toFixed(2)}`,
+  );
+  console.log(`  server event-loop lag ms: p50=${lag.p50.toFixed(2)} p99=${lag.p99.toFixed(2)} max=${lag.max.toFixed(2)}`);
+}
+
+async function main() {
+  const dir = fs.mkdtempSync(path.join(os.tmpdir(), 'audio-bench-'));
+  try {
+    console.log(`Segments: ${SEGMENTS} x ${SEGMENT_BYTES / 1024}KB, concurrency: ${CONCURRENCY}, requests: ${REQUESTS}`);
+    const names = createSegments(dir);
+    // The old handler only understands single ranges, so compare both on single seeks
+    await run('legacy (sync stat, no cache), single seeks', 'legacy', dir, names, randomSeek);
+    await run('serveAudioFile (async stat + LRU), single seeks', 'cached', dir, names, randomSeek);
+    await run('serveAudioFile (async stat + LRU), 10% multi-range', 'cached', dir, names, randomMixedRange);
+  } finally {
+    fs.rmSync(dir, { recursive: true, force: true });
+  }
+}
+
+if (process.argv[2] === '--server') {
+  runServer(process.argv[3] as HandlerName, process.argv[4]).catch((err) => {
+    console.error('Benchmark server failed:', err);
+    process.exit(1);
+  });
+} else {
+  main().catch((err) => {
+    console.error('Benchmark failed:', err);
+    process.exit(1);
+  });
+}
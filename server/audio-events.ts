@@ -0,0 +1,19 @@
+// Tiny hook so the storage layer can report removed recording files without
+// depending on the HTTP serving code (which keeps a metadata cache per file).
+type AudioFileDeletedListener = (filePath: string) => void;
+
+const listeners: AudioFileDeletedListener[] = [];
+
+export function onAudioFileDeleted(listener: AudioFileDeletedListener) {
+  listeners.push(listener);
+}
+
+export function notifyAudioFileDeleted(filePath: string) {
+  for (const listener of listeners) {
+    try {
+      listener(filePath);
+    } catch (err) {
+      console.warn('Audio file delete listener error:', err);
+    }
+  }
+}
@@ -0,0 +1,333 @@
+import fs from 'fs';
+import path from 'path';
+import { randomBytes } from 'crypto';
+import type { IncomingMessage, ServerResponse } from 'http';
+import type { FileHandle } from 'fs/promises';
+
+// Segment files are written once by the upload route and never modified afterwards,
+// so their metadata can be cached and clients may cache the bytes indefinitely.
+// Entries are still revalidated after a short TTL so deleted/replaced files are noticed.
+const STAT_CACHE_MAX_ENTRIES = 2000;
+const STAT_CACHE_TTL_MS = 60 * 1000;
+const MAX_RANGES = 16;
+
+// Headers derived from a file's metadata; stripped again if the file turns out to be gone
+const FILE_HEADERS = ['Accept-Ranges', 'ETag', 'Last-Modified', 'Cache-Control', 'Content-Type', 'Content-Range', 'Content-Length'];
+
+type AudioFileMeta = {
+  size: number;
+  etag: string;
+  lastModified: string;
+  contentType: string;
+  cachedAt: number;
+};
+
+type ByteRange = { start: number; end: number };
+
+// Map iteration order is insertion order, so re-inserting on hit gives a simple LRU
+const statCache = new Map<string, AudioFileMeta>();
+const pendingStats = new Map<string, Promise<AudioFileMeta | null>>();
+// Bumped on every invalidation so a stat that was already in flight does not re-cache stale metadata
+let cacheGeneration = 0;
+
+function contentTypeFor(filePath: string): string {
+  const ext = path.extname(filePath).toLowerCase();
+  return ext === '.webm' ? 'audio/webm'
+    : ext === '.m4a' || ext === '.mp4' ? 'audio/mp4'
+    : ext === '.ogg' ? 'audio/ogg'
+    : 'audio/*';
+}
+
+function cacheGet(filePath: string): AudioFileMeta | undefined {
+  const meta = statCache.get(filePath);
+  if (!meta) return undefined;
+  statCache.delete(filePath);
+  if (Date.now() - meta.cachedAt > STAT_CACHE_TTL_MS) return undefined;
+  statCache.set(filePath, meta);
+  return meta;
+}
+
+function cacheSet(filePath: string, meta: AudioFileMeta) {
+  statCache.delete(filePath);
+  statCache.set(filePath, meta);
+  while (statCache.size > STAT_CACHE_MAX_ENTRIES) {
+    const oldest = statCache.keys().next().value;
+    if (oldest === undefined) break;
+    statCache.delete(oldest);
+  }
+}
+
+export function invalidateAudioFile(filePath: string) {
+  cacheGeneration++;
+  statCache.delete(filePath);
+  pendingStats.delete(filePath);
+}
+
+async function loadMeta(filePath: string): Promise<AudioFileMeta | null> {
+  const cached = cacheGet(filePath);
+  if (cached) return cached;
+
+  // Coalesce concurrent lookups (e.g. a burst of seek requests) into one stat call
+  const pending = pendingStats.get(filePath);
+  if (pending) return pending;
+
+  const generation = cacheGeneration;
+  const lookup: Promise<AudioFileMeta | null> = fs.promises.stat(filePath).then(
+    (stat) => {
+      if (!stat.isFile()) return null;
+      // Strong validator: files are immutable once written, so size + mtime + inode
+      // identify the exact bytes on disk
+      const etag = `"${stat.size.toString(16)}-${Math.floor(stat.mtimeMs).toString(16)}-${stat.ino.toString(16)}"`;
+      const meta: AudioFileMeta = {
+        size: stat.size,
+        etag,
+        lastModified: stat.mtime.toUTCString(),
+        contentType: contentTypeFor(filePath),
+        cachedAt: Date.now(),
+      };
+      if (generation === cacheGeneration) cacheSet(filePath, meta);
+      return meta;
+    },
+    () => null,
+  ).finally(() => {
+    if (pendingStats.get(filePath) === lookup) pendingStats.delete(filePath);
+  });
+  pendingStats.set(filePath, lookup);
+  return lookup;
+}
+
+// Returns null when the header is malformed (serve the full file, per RFC 9110),
+// an empty array when no range is satisfiable, otherwise the requested ranges sorted
+// and with overlapping/adjacent ones merged, so `bytes=0-,0-,...` cannot amplify a response.
+export function parseRangeHeader(header: string, size: number): ByteRange[] | null {
+  const match = /^\s*bytes\s*=\s*(.+)$/i.exec(header);
+  if (!match) return null;
+
+  const specs = match[1].split(',');
+  if (specs.length > MAX_RANGES) return null;
+
+  const ranges: ByteRange[] = [];
+  for (const raw of specs) {
+    const spec = raw.trim();
+    const parts = /^(\d*)-(\d*)$/.exec(spec);
+    if (!parts || (parts[1] === '' && parts[2] === '')) return null;
+
+    let start: number;
+    let end: number;
+    if (parts[1] === '') {
+      // Suffix range: last N bytes
+      const suffix = parseInt(parts[2], 10);
+      if (suffix === 0) continue;
+      start = Math.max(size - suffix, 0);
+      end = size - 1;
+    } else {
+      start = parseInt(parts[1], 10);
+      end = parts[2] === '' ? size - 1 : Math.min(parseInt(parts[2], 10), size - 1);
+      if (parts[2] !== '' && parseInt(parts[2], 10) < start) return null;
+    }
+    if (start >= size || start > end) continue;
+    ranges.push({ start, end });
+  }
+
+  ranges.sort((a, b) => a.start - b.start);
+  const merged: ByteRange[] = [];
+  for (const range of ranges) {
+    const last = merged[merged.length - 1];
+    if (last && range.start <= last.end + 1) {
+      last.end = Math.max(last.end, range.end);
+    } else {
+      merged.push({ ...range });
+    }
+  }
+  return merged;
+}
+
+function streamRange(handle: FileHandle, res: ServerResponse, range: ByteRange, last: boolean): Promise<void> {
+  // 'close' has already fired if the client went away before streaming started,
+  // and piping into a destroyed response would wait for a drain that never comes
+  if (res.destroyed || res.writableEnded) return Promise.resolve();
+  return new Promise((resolve, reject) => {
+    // The handle is shared across multipart parts and closed by serveAudioFile
+    const stream = handle.createReadStream({ start: range.start, end: range.end, autoClose: false });
+    // A client that seeks away aborts the request; release the file handle straight away
+    const onClose = () => {
+      stream.destroy();
+      resolve();
+    };
+    res.once('close', onClose);
+    stream.on('error', (err) => {
+      res.off('close', onClose);
+      reject(err);
+    });
+    stream.on('end', () => {
+      res.off('close', onClose);
+      resolve();
+    });
+    stream.pipe(res, { end: last });
+  });
+}
+
+function sendNotFound(res: ServerResponse) {
+  for (const name of FILE_HEADERS) res.removeHeader(name);
+  res.statusCode = 404;
+  res.setHeader('Content-Type', 'application/json');
+  res.end(JSON.stringify({ message: 'Audio file not found' }));
+}
+
+function failStream(filePath: string, res: ServerResponse, err: unknown) {
+  invalidateAudioFile(filePath);
+  console.warn('Audio stream error:', err);
+  if (!res.headersSent) {
+    sendNotFound(res);
+  } else {
+    res.destroy();
+  }
+}
+
+function etagMatches(header: string, etag: string): boolean {
+  if (header.trim() === '*') return true;
+  return header.split(',').some((tag) => {
+    const t = tag.trim();
+    return t === etag || t === `W/${etag}`;
+  });
+}
+
+// If-Range carries either an entity tag (strong comparison) or the Last-Modified date
+function ifRangeMatches(value: string, meta: AudioFileMeta): boolean {
+  const v = value.trim();
+  if (v.startsWith('"') || v.startsWith('W/')) return v === meta.etag;
+  const date = Date.parse(v);
+  return !isNaN(date) && date === Date.parse(meta.lastModified);
+}
+
+function setCacheHeaders(res: ServerResponse, meta: AudioFileMeta) {
+  res.setHeader('ETag', meta.etag);
+  res.setHeader('Last-Modified', meta.lastModified);
+  // Recordings are per-employee, so keep them out of shared caches
+  res.setHeader('Cache-Control', 'private, max-age=31536000, immutable');
+}
+
+function multipartBody(ranges: ByteRange[], size: number, contentType: string) {
+  const boundary = randomBytes(12).toString('hex');
+  const partHeaders = ranges.map(({ start, end }) =>
+    `\r\n--${boundary}\r\nContent-Type: ${contentType}\r\nContent-Range: bytes ${start}-${end}/${size}\r\n\r\n`,
+  );
+  const closing = `\r\n--${boundary}--\r\n`;
+  const contentLength = ranges.reduce(
+    (total, { start, end }, i) => total + Buffer.byteLength(partHeaders[i]) + (end - start + 1),
+    Buffer.byteLength(closing),
+  );
+  return { boundary, partHeaders, closing, contentLength };
+}
+
+/**
+ * Serves an immutable audio segment with async stat, strong ETags, conditional
+ * GET and single/multi-range support. Responds 404 if the file is missing.
+ */
+export async function serveAudioFile(req: IncomingMessage, res: ServerResponse, filePath: string): Promise<void> {
+  const meta = await loadMeta(filePath);
+  // The player aborts in-flight requests while seeking; stop once the client is gone
+  if (res.destroyed) return;
+  if (!meta) {
+    sendNotFound(res);
+    return;
+  }
+
+  // Open before setting any headers so a file deleted within the cache TTL is a clean 404
+  let handle: FileHandle;
+  try {
+    handle = await fs.promises.open(filePath, 'r');
+  } catch {
+    invalidateAudioFile(filePath);
+    sendNotFound(res);
+    return;
+  }
+
+  try {
+    if (res.destroyed) return;
+    await sendFile(req, res, handle, meta);
+  } catch (err) {
+    failStream(filePath, res, err);
+  } finally {
+    await handle.close().catch(() => {});
+  }
+}
+
+async function sendFile(req: IncomingMessage, res: ServerResponse, handle: FileHandle, meta: AudioFileMeta): Promise<void> {
+  const { size, etag, contentType } = meta;
+  const isHead = req.method === 'HEAD';
+
+  res.setHeader('Accept-Ranges', 'bytes');
+
+  const ifNoneMatch = req.headers['if-none-match'];
+  if (ifNoneMatch && etagMatches(ifNoneMatch, etag)) {
+    setCacheHeaders(res, meta);
+    res.statusCode = 304;
+    res.end();
+    return;
+  }
+
+  // If-Range only honours the Range header when the validator still matches
+  let rangeHeader = req.headers.range;
+  const ifRange = req.headers['if-range'];
+  if (rangeHeader && ifRange && !ifRangeMatches(ifRange, meta)) {
+    rangeHeader = undefined;
+  }
+
+  let ranges = rangeHeader ? parseRangeHeader(rangeHeader, size) : null;
+
+  if (ranges && ranges.length === 0) {
+    res.statusCode = 416;
+    res.setHeader('Content-Range', `bytes */${size}`);
+    res.end();
+    return;
+  }
+
+  // Only successful responses are cacheable; the 416 above must not be kept for a year
+  setCacheHeaders(res, meta);
+
+  // A multipart body at least as large as the file is better sent as a plain 200
+  const multipart = ranges && ranges.length > 1 ? multipartBody(ranges, size, contentType) : null;
+  if (multipart && multipart.contentLength >= size) ranges = null;
+
+  if (!ranges) {
+    res.statusCode = 200;
+    res.setHeader('Content-Type', contentType);
+    res.setHeader('Content-Length', size);
+    if (isHead || size === 0) {
+      res.end();
+      return;
+    }
+    await streamRange(handle, res, { start: 0, end: size - 1 }, true);
+    return;
+  }
+
+  if (!multipart) {
+    const [{ start, end }] = ranges;
+    res.statusCode = 206;
+    res.setHeader('Content-Type', contentType);
+    res.setHeader('Content-Range', `bytes ${start}-${end}/${size}`);
+    res.setHeader('Content-Length', end - start + 1);
+    if (isHead) {
+      res.end();
+      return;
+    }
+    await streamRange(handle, res, ranges[0], true);
+    return;
+  }
+
+  // multipart/byteranges: each part gets its own headers, then a closing boundary
+  res.statusCode = 206;
+  res.setHeader('Content-Type', `multipart/byteranges; boundary=${multipart.boundary}`);
+  res.setHeader('Content-Length', multipart.contentLength);
+  if (isHead) {
+    res.end();
+    return;
+  }
+  for (let i = 0; i < ranges.length; i++) {
+    if (res.destroyed) return;
+    res.write(multipart.partHeaders[i]);
+    await streamRange(handle, res, ranges[i], false);
+  }
+  res.end(multipart.closing);
+}
@@ -3,6 +3,8 @@ import type { Server } from "http";
 import { WebSocketServer, WebSocket } from "ws";
 import { hashPassword } from "./auth";
 import { storage } from "./storage";
+import { serveAudioFile, invalidateAudioFile } from "./audio-files";
+import { onAudioFileDeleted, notifyAudioFileDeleted } from "./audio-events";
 import multer from "multer";
 import path from "path";
 import fs from "fs";
@@ -43,6 +45,9 @@ const upload = multer({
 });
 
 export function registerRoutes(app: Express, httpServer: Server) {
+  // Drop cached file metadata whenever storage removes a recording from disk
+  onAudioFileDeleted(invalidateAudioFile);
+
   // Health check (DB + session)
   app.get("/api/health", async (req, res) => {
     // If DATABASE_URL is configured, try a lightweight DB ping; otherwise, report db=false
@@ -480,49 +485,21 @@ export function registerRoutes(app: Express, httpServer: Server) {
     }
   });
 
-  // Serve audio files (with proper Content-Type and HTTP Range support)
-  app.get("/uploads/audio/:userId/:filename", (req, res) => {
+  // Serve audio files (async stat cache, strong ETags, single/multi-range support)
+  app.get("/uploads/audio/:userId/:filename", async (req, res) => {
     const { userId, filename } = req.params as { userId: string; filename: string };
-    const filePath = path.join(__dirname, 'uploads', 'audio', userId, filename);
-
-    if (!fs.existsSync(filePath)) {
+    if (!isSafePathSegment(userId) || !isSafePathSegment(filename)) {
       return res.status(404).json({ message: "Audio file not found" });
     }
+    const filePath = path.join(__dirname, 'uploads', 'audio', userId, filename);
 
-    const stat = fs.statSync(filePath);
-    const fileSize = stat.size;
-    const range = req.headers.range;
-    res.setHeader('Cache-Control', 'no-cache');
-    res.setHeader('Accept-Ranges', 'bytes');
-
-    const ext = path.extname(filePath).toLowerCase();
-    const contentType = ext === '.webm' ? 'audio/webm'
-      : ext === '.m4a' || ext === '.mp4' ? 'audio/mp4'
-      : ext === '.ogg' ? 'audio/ogg'
-      : 'audio/*';
-
-    if (range) {
-      const parts = range.replace(/bytes=/, '').split('-');
-      const start = parseInt(parts[0], 10);
-      const end = parts[1] ? parseInt(parts[1], 10) : fileSize - 1;
-      if (isNaN(start) || isNaN(end) || start > end || end >= fileSize) {
-        return res.status(416).set({ 'Content-Range': `bytes */${fileSize}` }).end();
+    try {
+      await serveAudioFile(req, res, filePath);
+    } catch (error) {
+      console.error('Audio serve error:', error);
+      if (!res.headersSent) {
+        res.status(500).json({ message: "Failed to serve audio file" });
       }
-      const chunkSize = end - start + 1;
-      res.writeHead(206, {
-        'Content-Range': `bytes ${start}-${end}/${fileSize}`,
-        'Accept-Ranges': 'bytes',
-        'Content-Length': chunkSize,
-        'Content-Type': contentType,
-      });
-      const stream = fs.createReadStream(filePath, { start, end });
-      stream.pipe(res);
-    } else {
-      res.writeHead(200, {
-        'Content-Length': fileSize,
-        'Content-Type': contentType,
-      });
-      fs.createReadStream(filePath).pipe(res);
     }
   });
 
@@ -624,6 +601,7 @@ export function registerRoutes(app: Express, httpServer: Server) {
         } catch (err) {
           console.warn('File delete error:', err);
         }
+        notifyAudioFileDeleted(filePath);
       }
 
       await storage.deleteAudioRecording(req.params.id);
@@ -637,6 +615,11 @@ export function registerRoutes(app: Express, httpServer: Server) {
   return;
 }
 
+// Helper function to reject path segments that could escape the uploads directory
+function isSafePathSegment(segment: string): boolean {
+  return !!segment && segment === path.basename(segment) && !segment.startsWith('.');
+}
+
 // Helper function to calculate distance between two coordinates
 function getDistance(lat1: number, lon1: number, lat2: number, lon2: number): number {
   const R = 6371e3; // Earth's radius in meters
@@ -5,7 +5,11 @@ import session from "express-session";
 import connectPg from "connect-pg-simple";
 import fs from "fs";
 import path from "path";
+import { fileURLToPath } from "url";
 import type { IStorage } from "./storage";
+import { notifyAudioFileDeleted } from "./audio-events";
+
+const __dirname = path.dirname(fileURLToPath(import.meta.url));
 
 const PostgresSessionStore = connectPg(session);
 
@@ -173,6 +177,7 @@ export class DatabaseStorage implements IStorage {
         } catch (err) {
           console.warn('File delete error:', err);
         }
+        notifyAudioFileDeleted(filePath);
       }
 
       await this.deleteAudioRecording(oldest.id);